@@ -0,0 +1,176 @@
+package fr.utbm.ev3.intersection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Index of the vehicles of the presence list, ordered by position on each lane.
+ * Two vehicles conflict if their lanes conflict and if their positions (distances from the red zone) differ by
+ * less than a given distance, i.e. if they may reach the red zone at about the same time.
+ * @author Alexandre Lombard
+ */
+public class ConflictIndex {
+
+    private static final Comparator<VehicleData> POSITION_COMPARATOR = new Comparator<VehicleData>() {
+        @Override
+        public int compare(VehicleData v1, VehicleData v2) {
+            return Double.compare(v1.getPosition(), v2.getPosition());
+        }
+    };
+
+    private final ConflictMatrix conflictMatrix;
+
+    /** The indexed vehicles, by ID */
+    private final Map<UUID, VehicleData> vehicles = new HashMap<>();
+
+    /** The vehicles of each lane of the matrix, ordered by position (<code>null</code> if the lane is empty) */
+    private Lane[] lanes = new Lane[0];
+
+    /** The vehicles of the lanes outside of the matrix (conflicting with every lane), ordered by position */
+    private final List<Lane> unknownLanes = new ArrayList<>();
+
+    /**
+     * Builds an empty conflict index
+     * @param conflictMatrix the lane-crossing conflict matrix
+     */
+    public ConflictIndex(ConflictMatrix conflictMatrix) {
+        this.conflictMatrix = conflictMatrix;
+    }
+
+    /**
+     * Rebuilds the index from a presence list
+     * @param presenceList the presence list
+     */
+    public void rebuild(List<VehicleData> presenceList) {
+        final Map<Integer, List<VehicleData>> vehiclesByLane = new HashMap<>();
+        vehicles.clear();
+        for(final VehicleData vehicleData : presenceList) {
+            vehicles.put(vehicleData.getId(), vehicleData);
+
+            List<VehicleData> laneVehicles = vehiclesByLane.get(vehicleData.getLaneId());
+            if(laneVehicles == null) {
+                laneVehicles = new ArrayList<>();
+                vehiclesByLane.put(vehicleData.getLaneId(), laneVehicles);
+            }
+            laneVehicles.add(vehicleData);
+        }
+
+        lanes = new Lane[conflictMatrix.getLaneCount()];
+        unknownLanes.clear();
+        for(final Map.Entry<Integer, List<VehicleData>> entry : vehiclesByLane.entrySet()) {
+            final int laneId = entry.getKey();
+            if(laneId >= 0 && laneId < lanes.length) {
+                lanes[laneId] = new Lane(entry.getValue());
+            } else {
+                unknownLanes.add(new Lane(entry.getValue()));
+            }
+        }
+    }
+
+    /**
+     * Gets an indexed vehicle
+     * @param vehicleId the ID of the vehicle
+     * @return the data of the vehicle, or <code>null</code> if the vehicle is not indexed
+     */
+    public VehicleData getVehicle(UUID vehicleId) {
+        return vehicles.get(vehicleId);
+    }
+
+    /**
+     * Finds the vehicles conflicting with a given vehicle (the vehicle itself is excluded)
+     * @param vehicleData the vehicle
+     * @param distance the maximum difference of position
+     * @return the conflicting vehicles
+     */
+    public List<VehicleData> findConflicts(VehicleData vehicleData, double distance) {
+        final List<VehicleData> conflicts = new ArrayList<>();
+        findConflicts(vehicleData, distance, conflicts);
+        return conflicts;
+    }
+
+    /**
+     * Finds the vehicles conflicting with a given vehicle (the vehicle itself is excluded)
+     * @param vehicleData the vehicle
+     * @param distance the maximum difference of position
+     * @param conflicts the list to which the conflicting vehicles are added
+     */
+    public void findConflicts(VehicleData vehicleData, double distance, List<VehicleData> conflicts) {
+        final double min = vehicleData.getPosition() - distance;
+        final double max = vehicleData.getPosition() + distance;
+
+        final int laneId = vehicleData.getLaneId();
+
+        if(laneId >= 0 && laneId < lanes.length) {
+            // Looking only at the conflicting lanes of the matrix
+            for(final int conflictingLaneId : conflictMatrix.getConflictingLanes(laneId)) {
+                if(conflictingLaneId < lanes.length && lanes[conflictingLaneId] != null) {
+                    lanes[conflictingLaneId].find(vehicleData, min, max, conflicts);
+                }
+            }
+        } else {
+            // A lane outside of the matrix conflicts with every lane of the matrix
+            for(final Lane lane : lanes) {
+                if(lane != null) {
+                    lane.find(vehicleData, min, max, conflicts);
+                }
+            }
+        }
+
+        // The lanes outside of the matrix conflict with every lane
+        for(final Lane lane : unknownLanes) {
+            lane.find(vehicleData, min, max, conflicts);
+        }
+    }
+
+    /**
+     * Vehicles of a lane, ordered by position
+     */
+    private static final class Lane {
+
+        private final VehicleData[] vehicles;
+        private final double[] positions;
+
+        Lane(List<VehicleData> laneVehicles) {
+            Collections.sort(laneVehicles, POSITION_COMPARATOR);
+
+            vehicles = laneVehicles.toArray(new VehicleData[laneVehicles.size()]);
+            positions = new double[vehicles.length];
+            for(int i = 0; i < vehicles.length; i++) {
+                positions[i] = vehicles[i].getPosition();
+            }
+        }
+
+        /**
+         * Adds the vehicles whose position is in the given range, except the given vehicle
+         */
+        void find(VehicleData vehicleData, double min, double max, List<VehicleData> result) {
+            for(int i = lowerBound(min); i < positions.length && positions[i] <= max; i++) {
+                if(!vehicles[i].getId().equals(vehicleData.getId())) {
+                    result.add(vehicles[i]);
+                }
+            }
+        }
+
+        /**
+         * Gets the index of the first position greater or equal to the given value
+         */
+        private int lowerBound(double value) {
+            int low = 0;
+            int high = positions.length;
+            while (low < high) {
+                final int mid = (low + high) >>> 1;
+                if(positions[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package fr.utbm.ev3.intersection;
+
+import fr.utbm.ev3.network.ObjectMessage;
+
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Message containing the vehicles conflicting with a given vehicle (subset of the presence list),
+ * emitted on the topic of this vehicle (see {@link IntersectionManager#getConflictListTopic(UUID)})
+ * @author Alexandre Lombard
+ */
+public class ConflictListMessage extends ObjectMessage<List<VehicleData>> {
+    /**
+     * Builds a message
+     *
+     * @param vehicleId the ID of the vehicle receiving the message
+     * @param conflictList the vehicles conflicting with this vehicle
+     */
+    public ConflictListMessage(UUID vehicleId, List<VehicleData> conflictList) {
+        super(IntersectionManager.getConflictListTopic(vehicleId), conflictList);
+    }
+}
@@ -0,0 +1,116 @@
+package fr.utbm.ev3.intersection;
+
+import java.util.Arrays;
+
+/**
+ * Lane-crossing conflict matrix: tells which lanes cross (or merge) in the intersection.
+ * The matrix is symmetric. Lanes outside of the matrix are considered as conflicting with every lane.
+ * @author Alexandre Lombard
+ */
+public class ConflictMatrix {
+
+    private final boolean[][] conflicts;
+
+    /** The conflicting lanes of each lane (cached, rebuilt when the matrix changes) */
+    private int[][] conflictingLanes;
+
+    /** The lanes used for the lanes outside of the matrix */
+    private final int[] allLanes;
+
+    /**
+     * Builds a conflict matrix
+     * @param laneCount the number of lanes (lanes IDs are from 0 to <code>laneCount - 1</code>)
+     * @param conflicting the initial value: <code>true</code> if all the lanes conflict with each other,
+     *                    <code>false</code> if each lane only conflicts with itself
+     */
+    public ConflictMatrix(int laneCount, boolean conflicting) {
+        if(laneCount <= 0)
+            throw new IllegalArgumentException("Lane count must be strictly positive");
+
+        this.conflicts = new boolean[laneCount][laneCount];
+        this.allLanes = new int[laneCount];
+
+        for(int i = 0; i < laneCount; i++) {
+            Arrays.fill(conflicts[i], conflicting);
+            conflicts[i][i] = true;
+            allLanes[i] = i;
+        }
+    }
+
+    /**
+     * Gets the number of lanes
+     * @return the number of lanes
+     */
+    public int getLaneCount() {
+        return conflicts.length;
+    }
+
+    /**
+     * Sets whether two lanes conflict (a lane always conflicts with itself)
+     * @param laneA the ID of the first lane
+     * @param laneB the ID of the second lane
+     * @param conflicting <code>true</code> if the lanes conflict
+     */
+    public synchronized void setConflict(int laneA, int laneB, boolean conflicting) {
+        checkLane(laneA);
+        checkLane(laneB);
+
+        if(laneA == laneB)
+            return;
+
+        conflicts[laneA][laneB] = conflicting;
+        conflicts[laneB][laneA] = conflicting;
+        conflictingLanes = null;
+    }
+
+    /**
+     * Checks if two lanes conflict
+     * @param laneA the ID of the first lane
+     * @param laneB the ID of the second lane
+     * @return <code>true</code> if the lanes conflict
+     */
+    public synchronized boolean isConflict(int laneA, int laneB) {
+        if(!isKnown(laneA) || !isKnown(laneB))
+            return true;
+        return conflicts[laneA][laneB];
+    }
+
+    /**
+     * Gets the lanes conflicting with a given lane (including itself)
+     * @param lane the ID of the lane
+     * @return the IDs of the conflicting lanes (must not be modified)
+     */
+    public synchronized int[] getConflictingLanes(int lane) {
+        if(!isKnown(lane))
+            return allLanes;
+
+        if(conflictingLanes == null) {
+            conflictingLanes = new int[conflicts.length][];
+            for(int i = 0; i < conflicts.length; i++) {
+                int count = 0;
+                for(int j = 0; j < conflicts.length; j++) {
+                    if(conflicts[i][j])
+                        count++;
+                }
+
+                conflictingLanes[i] = new int[count];
+                count = 0;
+                for(int j = 0; j < conflicts.length; j++) {
+                    if(conflicts[i][j])
+                        conflictingLanes[i][count++] = j;
+                }
+            }
+        }
+
+        return conflictingLanes[lane];
+    }
+
+    private boolean isKnown(int lane) {
+        return lane >= 0 && lane < conflicts.length;
+    }
+
+    private void checkLane(int lane) {
+        if(!isKnown(lane))
+            throw new IllegalArgumentException("Unknown lane: " + lane);
+    }
+}
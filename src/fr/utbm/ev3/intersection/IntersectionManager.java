@@ -6,10 +6,17 @@ import fr.utbm.ev3.network.MessageEventListener;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -21,6 +28,9 @@ public final class IntersectionManager {
     public static final int PERIOD_MS = 1000;
     public static final String REQUESTS_TOPIC = "REQUESTS";
     public static final String PRESENCE_LIST_TOPIC = "PRESENCE_LIST";
+    public static final String CONFLICT_LIST_TOPIC_PREFIX = "CONFLICT_LIST/";
+    public static final int DEFAULT_LANE_COUNT = 4;
+    public static final double DEFAULT_CONFLICT_DISTANCE = Double.POSITIVE_INFINITY;
 
     private static final Logger LOG = Logger.getLogger(IntersectionManager.class.getName());
     private ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
@@ -29,8 +39,28 @@ public final class IntersectionManager {
 
     private List<VehicleData> presenceList = new ArrayList<>();
 
+    private final ConflictMatrix conflictMatrix = new ConflictMatrix(DEFAULT_LANE_COUNT, true);
+    private final ConflictIndex conflictIndex = new ConflictIndex(conflictMatrix);
+
+    // region Configuration
+    private volatile double conflictDistance = DEFAULT_CONFLICT_DISTANCE;
+    private volatile boolean conflictListsEnabled = false;
+    // endregion
+
+    /** The lock guarding the pending requests */
+    private final Object pendingRequestsLock = new Object();
+
+    /** The latest request of each vehicle received since the last emission */
+    private Map<UUID, PendingRequest> pendingRequests = new LinkedHashMap<>();
+
+    /** The authenticated sender owning each vehicle (bound by its first request, released by its exit) */
+    private final ConcurrentMap<UUID, Integer> vehicleOwners = new ConcurrentHashMap<>();
+
+    /** The requests being applied, swapped with the pending requests to avoid allocations */
+    private Map<UUID, PendingRequest> appliedRequests = new LinkedHashMap<>();
+
     private IntersectionManager() {
-        // Register the listener which will process the requests
+        // Register the listener which will store the requests until the next emission
         BroadcastManager.getInstance().subscribe(REQUESTS_TOPIC, new MessageEventListener() {
             @Override
             public void onMessageReceived(Message message) {
@@ -38,29 +68,8 @@ public final class IntersectionManager {
                     final RequestMessage requestMessage = (RequestMessage) message;
                     final Request request = requestMessage.unsafeGetObject();
 
-                    final VehicleData vehicleData = request.getVehicleData();
-                    final int index = indexOf(vehicleData);
-
-                    LOG.info(request.toString());
-
-                    switch (request.getRequestType()) {
-                        // Note: ENTER and UPDATE don't need to be managed differently
-                        case ENTER:
-                        case UPDATE:
-                            if(index != -1) {
-                                // If already present, just refresh
-                                presenceList.set(index, vehicleData);
-                            } else {
-                                // Else, add to the list
-                                presenceList.add(vehicleData);
-                            }
-                            break;
-                        case EXIT:
-                            // We just remove the data from the presence if present
-                            if(index != -1) {
-                                presenceList.remove(index);
-                            }
-                            break;
+                    if(request != null) {
+                        coalesce(request, message);
                     }
                 }
             }
@@ -82,9 +91,24 @@ public final class IntersectionManager {
             @Override
             public void run() {
                 try {
-                    BroadcastManager.getInstance().publish(new PresenceListMessage(presenceList));
+                    final PresenceListMessage presenceListMessage;
+                    final List<ConflictListMessage> conflictListMessages;
+                    synchronized (IntersectionManager.this) {
+                        applyPendingRequests();
+                        // Note: the lists are serialized when building the messages, so they are snapshots
+                        presenceListMessage = new PresenceListMessage(presenceList);
+                        conflictListMessages = conflictListsEnabled
+                                ? createConflictListMessages()
+                                : Collections.<ConflictListMessage>emptyList();
+                    }
+
+                    BroadcastManager.getInstance().publish(presenceListMessage);
+                    BroadcastManager.getInstance().publishAll(conflictListMessages);
                 } catch (IOException e) {
                     System.err.println("Severe (unable to send presence list): " + e.getMessage());
+                } catch (RuntimeException e) {
+                    // Note: an uncaught exception would cancel the emission for good
+                    System.err.println("Severe (unable to process requests): " + e.getMessage());
                 }
             }
         }, 0, PERIOD_MS, TimeUnit.MILLISECONDS);
@@ -116,6 +140,189 @@ public final class IntersectionManager {
         return instance;
     }
 
+    /**
+     * Gets the topic of the conflict lists emitted to a vehicle
+     * @param vehicleId the ID of the vehicle
+     * @return the topic
+     */
+    public static String getConflictListTopic(UUID vehicleId) {
+        return CONFLICT_LIST_TOPIC_PREFIX + vehicleId;
+    }
+
+    /**
+     * Gets the lane-crossing conflict matrix (by default, all the lanes conflict with each other)
+     * @return the conflict matrix
+     */
+    public ConflictMatrix getConflictMatrix() {
+        return conflictMatrix;
+    }
+
+    /**
+     * Gets the maximum difference of position between two conflicting vehicles
+     * @return the conflict distance
+     */
+    public double getConflictDistance() {
+        return conflictDistance;
+    }
+
+    /**
+     * Sets the maximum difference of position between two conflicting vehicles
+     * @param conflictDistance the conflict distance
+     */
+    public void setConflictDistance(double conflictDistance) {
+        this.conflictDistance = conflictDistance;
+    }
+
+    /**
+     * Checks if the conflict lists are emitted to each vehicle along with the presence list
+     * @return <code>true</code> if the conflict lists are emitted
+     */
+    public boolean isConflictListsEnabled() {
+        return conflictListsEnabled;
+    }
+
+    /**
+     * Enables the emission of the conflict lists (see {@link #getConflictListTopic(UUID)})
+     * @param conflictListsEnabled <code>true</code> to emit the conflict lists
+     */
+    public void setConflictListsEnabled(boolean conflictListsEnabled) {
+        this.conflictListsEnabled = conflictListsEnabled;
+    }
+
+    /**
+     * Gets the vehicles of the presence list conflicting with a given vehicle
+     * @param vehicleId the ID of the vehicle
+     * @param distance the maximum difference of position
+     * @return the conflicting vehicles (empty if the vehicle is not in the presence list)
+     */
+    public synchronized List<VehicleData> getConflicts(UUID vehicleId, double distance) {
+        applyPendingRequests();
+
+        final VehicleData vehicleData = conflictIndex.getVehicle(vehicleId);
+        if(vehicleData == null)
+            return new ArrayList<>();
+
+        return conflictIndex.findConflicts(vehicleData, distance);
+    }
+
+    /**
+     * Builds the messages containing the conflict list of each vehicle of the presence list
+     * (must be called while holding the lock of the manager)
+     * @return the messages, one per vehicle
+     */
+    private List<ConflictListMessage> createConflictListMessages() {
+        final List<ConflictListMessage> messages = new ArrayList<>(presenceList.size());
+        for(final VehicleData vehicleData : presenceList) {
+            messages.add(new ConflictListMessage(
+                    vehicleData.getId(),
+                    conflictIndex.findConflicts(vehicleData, conflictDistance)));
+        }
+        return messages;
+    }
+
+    /**
+     * Stores a received request, replacing the previous request of the same vehicle.
+     * An exit followed by a new entry is remembered, so the vehicle is re-added at the end of the presence list.
+     * Malformed requests are dropped, as well as authenticated requests about a vehicle owned by another sender.
+     * @param request the received request
+     * @param message the message containing the request
+     */
+    private void coalesce(Request request, Message message) {
+        if(request.getRequestType() == null
+                || request.getVehicleData() == null
+                || request.getVehicleData().getId() == null) {
+            LOG.warning("Malformed request dropped: " + request);
+            return;
+        }
+
+        final UUID id = request.getVehicleData().getId();
+
+        if(message.isAuthenticated()) {
+            final Integer owner = vehicleOwners.putIfAbsent(id, message.getSenderId());
+            if(owner != null && owner.intValue() != message.getSenderId()) {
+                LOG.warning("Request dropped (vehicle owned by another sender): " + request);
+                return;
+            }
+
+            if(request.getRequestType() == Request.RequestType.EXIT) {
+                vehicleOwners.remove(id);
+            }
+        }
+
+        synchronized (pendingRequestsLock) {
+            PendingRequest pendingRequest = pendingRequests.get(id);
+            if(pendingRequest == null) {
+                pendingRequest = new PendingRequest();
+                pendingRequests.put(id, pendingRequest);
+            } else if(pendingRequest.latest.getRequestType() == Request.RequestType.EXIT
+                    && request.getRequestType() != Request.RequestType.EXIT) {
+                // The vehicle comes back: it is applied after the vehicles which arrived meanwhile
+                pendingRequest.exited = true;
+                pendingRequests.remove(id);
+                pendingRequests.put(id, pendingRequest);
+            }
+            pendingRequest.latest = request;
+        }
+    }
+
+    /**
+     * Applies the requests received since the last call to the presence list
+     * (must be called before emitting or evaluating the presence list).
+     * The presence list is only read or modified while holding the lock of the manager.
+     */
+    private synchronized void applyPendingRequests() {
+        synchronized (pendingRequestsLock) {
+            final Map<UUID, PendingRequest> requests = pendingRequests;
+            pendingRequests = appliedRequests;
+            appliedRequests = requests;
+        }
+
+        if(appliedRequests.isEmpty())
+            return;
+
+        try {
+            for(final PendingRequest pendingRequest : appliedRequests.values()) {
+                final Request request = pendingRequest.latest;
+                final VehicleData vehicleData = request.getVehicleData();
+                int index = indexOf(vehicleData);
+
+                if(LOG.isLoggable(Level.INFO)) {
+                    LOG.info(request.toString());
+                }
+
+                if(pendingRequest.exited && index != -1) {
+                    // The vehicle left before coming back
+                    presenceList.remove(index);
+                    index = -1;
+                }
+
+                switch (request.getRequestType()) {
+                    // Note: ENTER and UPDATE don't need to be managed differently
+                    case ENTER:
+                    case UPDATE:
+                        if(index != -1) {
+                            // If already present, just refresh
+                            presenceList.set(index, vehicleData);
+                        } else {
+                            // Else, add to the list
+                            presenceList.add(vehicleData);
+                        }
+                        break;
+                    case EXIT:
+                        // We just remove the data from the presence if present
+                        if(index != -1) {
+                            presenceList.remove(index);
+                        }
+                        break;
+                }
+            }
+        } finally {
+            // Note: the requests are never applied twice, even if one of them fails
+            appliedRequests.clear();
+            conflictIndex.rebuild(presenceList);
+        }
+    }
+
     private boolean isPresent(VehicleData vehicleData) {
         for(final VehicleData v : presenceList) {
             if(v.getId().equals(vehicleData.getId()))
@@ -132,4 +339,13 @@ public final class IntersectionManager {
         return -1;
     }
 
+    /**
+     * Latest request of a vehicle waiting to be applied
+     */
+    private static final class PendingRequest {
+        /** The latest received request */
+        private Request latest;
+        /** <code>true</code> if an exit was received before the latest request */
+        private boolean exited = false;
+    }
 }
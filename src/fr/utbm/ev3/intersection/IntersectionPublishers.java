@@ -0,0 +1,46 @@
+package fr.utbm.ev3.intersection;
+
+import fr.utbm.ev3.network.Flow;
+import fr.utbm.ev3.network.Publishers;
+import fr.utbm.ev3.network.TopicPublisher;
+
+import java.util.UUID;
+
+/**
+ * Publishers of the intersection topics, conflated so slow consumers always receive the freshest state.
+ * @author Alexandre Lombard
+ */
+public final class IntersectionPublishers {
+
+    private IntersectionPublishers() {
+        // Not instantiable
+    }
+
+    /**
+     * Gets a publisher of the presence lists, keeping only the latest one not yet requested
+     * @return the publisher of presence lists
+     */
+    public static Flow.Publisher<PresenceListMessage> latestPresenceList() {
+        return Publishers.latest(
+                new TopicPublisher<>(IntersectionManager.PRESENCE_LIST_TOPIC, PresenceListMessage.class));
+    }
+
+    /**
+     * Gets a publisher of the requests, keeping only the latest one of each vehicle not yet requested
+     * @return the publisher of requests
+     */
+    public static Flow.Publisher<RequestMessage> latestRequestPerVehicle() {
+        return Publishers.conflate(
+                new TopicPublisher<>(IntersectionManager.REQUESTS_TOPIC, RequestMessage.class),
+                new Publishers.KeySelector<RequestMessage, UUID>() {
+                    @Override
+                    public UUID keyOf(RequestMessage item) {
+                        final Request request = item.unsafeGetObject();
+                        // Note: undecodable or malformed requests are conflated together
+                        if(request == null || request.getVehicleData() == null)
+                            return null;
+                        return request.getVehicleData().getId();
+                    }
+                });
+    }
+}
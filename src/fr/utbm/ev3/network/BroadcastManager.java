@@ -4,6 +4,8 @@ import java.io.*;
 import java.net.*;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -25,15 +27,22 @@ public final class BroadcastManager {
         }
     }
 
+    /** The maximum length of a packet (size of the reception buffer) */
+    public static final int MAX_PACKET_LENGTH = 10 * 1024;
+
     private static BroadcastManager instance;
 
-    private final Map<String, List<MessageEventListener>> listeners = new ConcurrentHashMap<>();
+    /** The listeners of each topic (copy-on-write, so listeners can (un)subscribe while messages are dispatched) */
+    private final ConcurrentMap<String, List<MessageEventListener>> listeners = new ConcurrentHashMap<>();
 
     /** The executor service for the listening task */
     private ExecutorService executorService = Executors.newSingleThreadExecutor();
 
     // region Configuration
     private int port = 4242;
+
+    /** The authenticator of the packets, <code>null</code> if the packets are not authenticated */
+    private volatile MessageAuthenticator authenticator;
     // endregion
 
     /** Private constructor (singleton pattern) */
@@ -72,17 +81,32 @@ public final class BroadcastManager {
             public void run() {
                 try {
                     final DatagramSocket socket = new DatagramSocket(port, InetAddress.getByName("0.0.0.0"));
-                    final byte[] buffer = new byte[10 * 1024];
+                    final byte[] buffer = new byte[MAX_PACKET_LENGTH];
 
                     while (true) {
                         final DatagramPacket packet = new DatagramPacket(buffer, 0, buffer.length);
                         try {
                             socket.receive(packet);
 
-                            final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(buffer));
+                            int headerLength = 0;
+                            final MessageAuthenticator authenticator = BroadcastManager.this.authenticator;
+                            if (authenticator != null) {
+                                if (!authenticator.verify(buffer, packet.getOffset(), packet.getLength())) {
+                                    // Note: forged or corrupted packets are dropped before being deserialized
+                                    continue;
+                                }
+                                headerLength = MessageAuthenticator.HEADER_LENGTH;
+                            }
+
+                            final ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(
+                                    buffer, packet.getOffset() + headerLength, packet.getLength() - headerLength));
                             final Object object = ois.readObject();
 
                             if (object instanceof Message) {
+                                if (headerLength != 0) {
+                                    ((Message) object).setAuthenticatedSender(
+                                            MessageAuthenticator.readSenderId(buffer, packet.getOffset()));
+                                }
                                 fireMessageReceived((Message) object);
                             }
                             // Note: Ignoring unsupported messages
@@ -137,28 +161,93 @@ public final class BroadcastManager {
         restart();
     }
 
+    /**
+     * Gets the authenticator of the packets
+     * @return the authenticator, or <code>null</code> if the packets are not authenticated
+     */
+    public MessageAuthenticator getAuthenticator() {
+        return authenticator;
+    }
+
+    /**
+     * Sets the authenticator of the packets: the emitted packets are signed and the received packets which are
+     * not signed by a known sender are dropped. All the systems must use the same setting.
+     * Unless the authenticator stores its counter in a file, the clock of the sender must never go back (e.g. after
+     * a reboot of an EV3 brick without synchronized clock), otherwise its packets are dropped as replayed.
+     * @param authenticator the authenticator, or <code>null</code> to disable the authentication
+     */
+    public void setAuthenticator(MessageAuthenticator authenticator) {
+        this.authenticator = authenticator;
+    }
+
     /**
      * Publishes (broadcast) a message
      * @param message the message
      * @throws IOException thrown in case of failure when initializing the socket,
-     *                     or when sending the message
+     *                     or when sending the message (or if it does not fit in a packet)
      */
     public void publish(Message message) throws IOException {
+        publishAll(Collections.singletonList(message));
+    }
+
+    /**
+     * Publishes (broadcast) several messages, one packet per message, using a single socket.
+     * Nothing is sent if one of the messages does not fit in a packet.
+     * @param messages the messages
+     * @throws IOException thrown in case of failure when initializing the socket,
+     *                     or when sending the messages (or if one of them does not fit in a packet)
+     */
+    public void publishAll(Collection<? extends Message> messages) throws IOException {
+        final List<byte[]> messageBuffers = new ArrayList<>(messages.size());
+        for(Message message : messages) {
+            messageBuffers.add(serialize(message));
+        }
+
         // Socket initialization
         final DatagramSocket socket = new DatagramSocket();
-        socket.setBroadcast(true);
+        try {
+            socket.setBroadcast(true);
 
-        // Serializing and sending the message
+            for(byte[] messageBuffer : messageBuffers) {
+                final DatagramPacket packet =
+                        new DatagramPacket(messageBuffer, messageBuffer.length, BROADCAST_ADDRESS, port);
+                socket.send(packet);
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Serializes a message (after the header if the packets are authenticated)
+     * @param message the message
+     * @return the content of the packet
+     * @throws IOException thrown in case of failure when serializing the message,
+     *                     or if the message does not fit in a packet
+     */
+    private byte[] serialize(Message message) throws IOException {
+        final MessageAuthenticator authenticator = this.authenticator;
         final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        if(authenticator != null) {
+            bos.write(new byte[MessageAuthenticator.HEADER_LENGTH]);
+        }
+
         final ObjectOutputStream out = new ObjectOutputStream(bos);
         out.writeObject(message);
         out.flush();
 
         final byte[] messageBuffer = bos.toByteArray();
-        final DatagramPacket packet =
-                new DatagramPacket(messageBuffer, messageBuffer.length, BROADCAST_ADDRESS, port);
-        socket.send(packet);
-        socket.close();
+        if(messageBuffer.length > MAX_PACKET_LENGTH) {
+            // Note: a truncated packet could not be decoded by the receivers
+            throw new IOException("Message too large for a packet (" + messageBuffer.length + " bytes, topic "
+                    + message.getTopic() + ")");
+        }
+
+        if(authenticator != null) {
+            authenticator.sign(messageBuffer, messageBuffer.length);
+        }
+
+        return messageBuffer;
     }
 
     /**
@@ -167,11 +256,16 @@ public final class BroadcastManager {
      * @param listener the message event listener
      */
     public void subscribe(String topic, MessageEventListener listener) {
-        if(!listeners.containsKey(topic)) {
-            listeners.put(topic, new ArrayList<MessageEventListener>());
+        List<MessageEventListener> topicListeners = listeners.get(topic);
+        if(topicListeners == null) {
+            final List<MessageEventListener> newListeners = new CopyOnWriteArrayList<>();
+            topicListeners = listeners.putIfAbsent(topic, newListeners);
+            if(topicListeners == null) {
+                topicListeners = newListeners;
+            }
         }
 
-        listeners.get(topic).add(listener);
+        topicListeners.add(listener);
     }
 
     /**
@@ -181,8 +275,9 @@ public final class BroadcastManager {
      * @return <code>true</code> if the listener was removed, <code>false</code> if nothing was done
      */
     public boolean unsubscribe(String topic, MessageEventListener listener) {
-        if(listeners.containsKey(topic)) {
-            return listeners.get(topic).remove(listener);
+        final List<MessageEventListener> topicListeners = listeners.get(topic);
+        if(topicListeners != null) {
+            return topicListeners.remove(listener);
         }
 
         return false;
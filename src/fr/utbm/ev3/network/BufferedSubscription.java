@@ -0,0 +1,358 @@
+package fr.utbm.ev3.network;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Subscription storing the produced items in a buffer until they are requested by the subscriber.
+ * The buffer decides which items are kept (bounded queue, latest value per key...).
+ * @author Alexandre Lombard
+ */
+class BufferedSubscription<T> implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super T> subscriber;
+    private final Buffer<T> buffer;
+
+    /** The executor used for the delivery, <code>null</code> to deliver in the signaling thread */
+    private final Executor executor;
+
+    private final AtomicLong requested = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile boolean cancelled = false;
+    private volatile boolean done = false;
+    private Throwable error;
+
+    /** The subscription of the source of the items (cancelled with this subscription) */
+    private Flow.Subscription upstream;
+
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    /**
+     * Builds a buffered subscription
+     * @param subscriber the subscriber receiving the items
+     * @param buffer the buffer storing the items until they are requested
+     * @param executor the executor used for the delivery, <code>null</code> to deliver in the signaling thread
+     */
+    BufferedSubscription(Flow.Subscriber<? super T> subscriber, Buffer<T> buffer, Executor executor) {
+        this.subscriber = subscriber;
+        this.buffer = buffer;
+        this.executor = executor;
+    }
+
+    /**
+     * Attaches the subscription of the source, cancelled along with this subscription
+     * @param upstream the subscription of the source
+     */
+    void attach(Flow.Subscription upstream) {
+        synchronized (this) {
+            if(!cancelled) {
+                this.upstream = upstream;
+                return;
+            }
+        }
+        upstream.cancel();
+    }
+
+    /**
+     * Adds an item to the buffer, and delivers it if it was requested
+     * @param item the item
+     */
+    void next(T item) {
+        if(enqueue(item)) {
+            signal();
+        }
+    }
+
+    /**
+     * Adds an item to the buffer without delivering it (only takes the lock of the buffer),
+     * {@link #signal()} must be called afterwards
+     * @param item the item
+     * @return <code>true</code> if the item was added
+     */
+    boolean enqueue(T item) {
+        synchronized (buffer) {
+            if(cancelled || done)
+                return false;
+            buffer.offer(item);
+            return true;
+        }
+    }
+
+    /**
+     * Completes the subscription once the buffered items are delivered
+     */
+    void complete() {
+        synchronized (buffer) {
+            done = true;
+        }
+        signal();
+    }
+
+    /**
+     * Terminates the subscription with an error once the buffered items are delivered
+     * @param throwable the error
+     */
+    void error(Throwable throwable) {
+        synchronized (buffer) {
+            if(done)
+                return;
+            this.error = throwable;
+            done = true;
+        }
+        signal();
+    }
+
+    /**
+     * Terminates the subscription with an error immediately, dropping the buffered items
+     * @param throwable the error
+     */
+    private void fail(Throwable throwable) {
+        synchronized (buffer) {
+            buffer.clear();
+            this.error = throwable;
+            done = true;
+        }
+        signal();
+    }
+
+    /**
+     * Checks if the subscription was cancelled or terminated
+     * @return <code>true</code> if no more item will be delivered
+     */
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void request(long n) {
+        if(n <= 0) {
+            fail(new IllegalArgumentException("Non-positive request: " + n));
+            return;
+        }
+
+        long current, next;
+        do {
+            current = requested.get();
+            next = current + n;
+            if(next < 0) {
+                // Overflow, the demand becomes unbounded
+                next = Long.MAX_VALUE;
+            }
+        } while (!requested.compareAndSet(current, next));
+
+        signal();
+    }
+
+    @Override
+    public void cancel() {
+        final Flow.Subscription upstream;
+        synchronized (this) {
+            if(cancelled)
+                return;
+            cancelled = true;
+            upstream = this.upstream;
+        }
+
+        synchronized (buffer) {
+            buffer.clear();
+        }
+
+        if(upstream != null) {
+            upstream.cancel();
+        }
+    }
+
+    /**
+     * Schedules the delivery, only one delivery loop runs at a time
+     */
+    void signal() {
+        if(wip.getAndIncrement() == 0) {
+            if(executor == null) {
+                drain();
+            } else {
+                executor.execute(drainTask);
+            }
+        }
+    }
+
+    /**
+     * Delivers the buffered items according to the demand
+     */
+    private void drain() {
+        int missed = 1;
+        do {
+            final long r = requested.get();
+            long emitted = 0;
+
+            while (emitted != r && !cancelled) {
+                final T item;
+                synchronized (buffer) {
+                    item = buffer.poll();
+                }
+                if(item == null)
+                    break;
+
+                try {
+                    subscriber.onNext(item);
+                } catch (Throwable t) {
+                    // A failing subscriber is considered as cancelled
+                    t.printStackTrace();
+                    cancel();
+                    return;
+                }
+                emitted++;
+            }
+
+            if(cancelled)
+                return;
+
+            final boolean terminated;
+            synchronized (buffer) {
+                terminated = done && buffer.isEmpty();
+            }
+
+            if(terminated) {
+                cancel();
+                if(error != null) {
+                    subscriber.onError(error);
+                } else {
+                    subscriber.onComplete();
+                }
+                return;
+            }
+
+            if(emitted != 0 && r != Long.MAX_VALUE) {
+                requested.addAndGet(-emitted);
+            }
+
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    /**
+     * Storage of the items waiting to be requested (accessed under its own lock)
+     * @param <T> the type of the items
+     */
+    interface Buffer<T> {
+        /**
+         * Adds an item, possibly replacing or dropping other items
+         * @param item the item
+         */
+        void offer(T item);
+
+        /**
+         * Removes the next item to deliver
+         * @return the item or <code>null</code> if the buffer is empty
+         */
+        T poll();
+
+        /**
+         * Checks if the buffer is empty
+         * @return <code>true</code> if there is no item to deliver
+         */
+        boolean isEmpty();
+
+        /**
+         * Removes all the items
+         */
+        void clear();
+    }
+
+    /**
+     * Bounded FIFO buffer, the oldest item is dropped when the buffer is full
+     */
+    static final class BoundedBuffer<T> implements Buffer<T> {
+
+        private final int capacity;
+        private final ArrayDeque<T> items = new ArrayDeque<>();
+
+        /**
+         * Builds a bounded buffer
+         * @param capacity the maximum number of stored items
+         */
+        BoundedBuffer(int capacity) {
+            if(capacity <= 0)
+                throw new IllegalArgumentException("Capacity must be strictly positive");
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void offer(T item) {
+            if(items.size() == capacity) {
+                items.pollFirst();
+            }
+            items.offerLast(item);
+        }
+
+        @Override
+        public T poll() {
+            return items.pollFirst();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return items.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            items.clear();
+        }
+    }
+
+    /**
+     * Conflating buffer, only the latest item of a given key is kept. Keys are delivered in the order of their
+     * first pending item, so a frequently updated key cannot starve the others.
+     */
+    static final class ConflatingBuffer<T, K> implements Buffer<T> {
+
+        private final Publishers.KeySelector<? super T, K> keySelector;
+        private final Map<K, T> items = new LinkedHashMap<>();
+
+        /**
+         * Builds a conflating buffer
+         * @param keySelector the function giving the key of an item
+         */
+        ConflatingBuffer(Publishers.KeySelector<? super T, K> keySelector) {
+            this.keySelector = keySelector;
+        }
+
+        @Override
+        public void offer(T item) {
+            // Note: replacing the value of an existing key keeps its position
+            items.put(keySelector.keyOf(item), item);
+        }
+
+        @Override
+        public T poll() {
+            final Iterator<T> iterator = items.values().iterator();
+            if(!iterator.hasNext())
+                return null;
+
+            final T item = iterator.next();
+            iterator.remove();
+            return item;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return items.isEmpty();
+        }
+
+        @Override
+        public void clear() {
+            items.clear();
+        }
+    }
+}
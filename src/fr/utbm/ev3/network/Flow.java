@@ -0,0 +1,71 @@
+package fr.utbm.ev3.network;
+
+/**
+ * Reactive Streams interfaces used for demand-driven message delivery.
+ * They mirror <code>java.util.concurrent.Flow</code>, which is not available on the Java runtime of the EV3 bricks.
+ * @author Alexandre Lombard
+ */
+public final class Flow {
+
+    private Flow() {
+        // Not instantiable
+    }
+
+    /**
+     * Producer of items received by subscribers according to their demand.
+     * @param <T> the type of the published items
+     */
+    public interface Publisher<T> {
+        /**
+         * Adds a subscriber. The subscriber will be notified through its
+         * {@link Subscriber#onSubscribe(Subscription)} method before receiving any item.
+         * @param subscriber the subscriber
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+
+    /**
+     * Receiver of items, only called after having requested them through its subscription.
+     * @param <T> the type of the received items
+     */
+    public interface Subscriber<T> {
+        /**
+         * Called once, before any other method, when the subscription is created.
+         * @param subscription the subscription used to request items or to cancel
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with the next item (never more than the requested number of items).
+         * @param item the item
+         */
+        void onNext(T item);
+
+        /**
+         * Called when the publisher fails, no other method is called afterwards.
+         * @param throwable the error
+         */
+        void onError(Throwable throwable);
+
+        /**
+         * Called when the publisher has no more items, no other method is called afterwards.
+         */
+        void onComplete();
+    }
+
+    /**
+     * Link between a publisher and a subscriber.
+     */
+    public interface Subscription {
+        /**
+         * Requests additional items.
+         * @param n the number of additional items (strictly positive, {@link Long#MAX_VALUE} for unbounded)
+         */
+        void request(long n);
+
+        /**
+         * Stops the delivery of items.
+         */
+        void cancel();
+    }
+}
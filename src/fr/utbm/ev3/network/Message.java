@@ -8,9 +8,17 @@ import java.io.Serializable;
  */
 public class Message implements Serializable {
 
+    /** Fixed to the value computed before the authentication was added, so older systems can decode the messages */
+    private static final long serialVersionUID = -5714845147416243333L;
+
     private final String topic;
     private final byte[] content;
 
+    // region Authentication (set on reception, never serialized so it cannot be forged)
+    private transient boolean authenticated = false;
+    private transient int senderId;
+    // endregion
+
     /**
      * Builds a message
      * @param topic the topic of the message
@@ -36,4 +44,30 @@ public class Message implements Serializable {
     public byte[] getContent() {
         return content;
     }
+
+    /**
+     * Checks if the message was received in a packet authenticated by the broadcast manager
+     * @return <code>true</code> if the sender is authenticated
+     */
+    public boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    /**
+     * Gets the ID of the authenticated sender
+     * @return the ID of the sender (only meaningful if {@link #isAuthenticated()})
+     * @see MessageAuthenticator
+     */
+    public int getSenderId() {
+        return senderId;
+    }
+
+    /**
+     * Marks the message as received from an authenticated sender
+     * @param senderId the ID of the sender
+     */
+    void setAuthenticatedSender(int senderId) {
+        this.authenticated = true;
+        this.senderId = senderId;
+    }
 }
@@ -0,0 +1,345 @@
+package fr.utbm.ev3.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * HMAC based authentication of the packets exchanged by the broadcast manager.
+ * An authenticated packet starts with a header containing the ID of the sender, a counter and the (truncated) HMAC
+ * of the sender ID, of the counter and of the serialized message, computed with the key of the sender.
+ * The header is verified before the message is deserialized, so forged or corrupted packets are dropped as cheaply
+ * as possible. The counter of a sender must increase from one packet to the next, so a captured packet cannot be
+ * replayed (late or reordered packets are dropped too, which is fine as they carry outdated data).
+ * The counter must also keep increasing when the sender restarts, otherwise its packets are dropped until the
+ * receivers restart. With a counter file, a block of counter values is reserved in the file before being used, and
+ * the next block is used after a restart. Without a counter file, the counter is based on the clock, which requires
+ * the clock of the sender to never go back (i.e. to be synchronized, which is not the default on the EV3 bricks).
+ * The HMAC is computed over a message digest reused for each key, with the padded keys precomputed, so the
+ * verification does not allocate (unlike {@link javax.crypto.Mac}, whose <code>doFinal</code> allocates its result).
+ * @author Alexandre Lombard
+ */
+public class MessageAuthenticator {
+
+    /** The hash function of the HMAC (HMAC-SHA256) */
+    public static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /** The length of the hash, and of the untruncated MAC */
+    private static final int DIGEST_LENGTH = 32;
+
+    /** The length of the blocks of the hash function */
+    private static final int BLOCK_LENGTH = 64;
+
+    /** The length of the truncated MAC sent in the header */
+    public static final int MAC_LENGTH = 16;
+
+    /** The length of the header (sender ID, counter, then MAC) */
+    public static final int HEADER_LENGTH = 4 + 8 + MAC_LENGTH;
+
+    /** The number of counter values reserved at once in the counter file */
+    public static final long COUNTER_BLOCK_SIZE = 1 << 16;
+
+    /** The offset of the MAC in the header */
+    private static final int MAC_OFFSET = 4 + 8;
+
+    private final int senderId;
+
+    /** The HMAC context used for signing (guarded by itself) */
+    private final HmacContext signingContext;
+    private final byte[] signingBuffer;
+
+    /** The counter of the last signed packet (guarded by the signing HMAC context) */
+    private long signingCounter = 0;
+
+    /** The file storing the highest reserved counter, <code>null</code> to use the clock */
+    private final File counterFile;
+
+    /** The highest counter which can be used without reserving a new block (guarded by the signing HMAC context) */
+    private long reservedCounter = 0;
+
+    // region Known senders (sorted by ID, replaced on modification, guarded by this)
+    private int[] senderIds = new int[0];
+    private HmacContext[] senderContexts = new HmacContext[0];
+    private long[] senderCounters = new long[0];
+    // endregion
+
+    private final byte[] verificationBuffer = new byte[DIGEST_LENGTH];
+
+    /**
+     * Builds an authenticator whose counter is based on the clock (the clock must never go back)
+     * @param senderId the ID used to sign the emitted packets
+     * @param key the secret key of this sender (also accepted for the received packets)
+     */
+    public MessageAuthenticator(int senderId, byte[] key) {
+        this(senderId, key, null);
+    }
+
+    /**
+     * Builds an authenticator whose counter is stored in a file, so it keeps increasing across restarts
+     * without relying on the clock
+     * @param senderId the ID used to sign the emitted packets
+     * @param key the secret key of this sender (also accepted for the received packets)
+     * @param counterFile the file storing the counter (created if needed), <code>null</code> to use the clock
+     * @throws IllegalStateException thrown if the counter file cannot be read or written
+     */
+    public MessageAuthenticator(int senderId, byte[] key, File counterFile) {
+        this.senderId = senderId;
+        this.counterFile = counterFile;
+
+        if(counterFile != null) {
+            try {
+                // The values of the previous block may have been used before the restart
+                signingCounter = readCounter(counterFile);
+                reservedCounter = signingCounter + COUNTER_BLOCK_SIZE;
+                writeCounter(counterFile, reservedCounter);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        this.signingContext = new HmacContext(key);
+        this.signingBuffer = new byte[DIGEST_LENGTH];
+
+        addSender(senderId, key);
+    }
+
+    /**
+     * Gets the ID used to sign the emitted packets
+     * @return the sender ID
+     */
+    public int getSenderId() {
+        return senderId;
+    }
+
+    /**
+     * Adds (or replaces) the key of a sender whose packets are accepted
+     * @param senderId the ID of the sender
+     * @param key the secret key of the sender
+     */
+    public synchronized void addSender(int senderId, byte[] key) {
+        final HmacContext context = new HmacContext(key);
+        final int index = Arrays.binarySearch(senderIds, senderId);
+
+        if(index >= 0) {
+            // Note: the counter is kept, so changing a key does not allow replaying older packets
+            senderContexts[index] = context;
+            return;
+        }
+
+        final int insertion = -index - 1;
+        final int[] ids = new int[senderIds.length + 1];
+        final HmacContext[] contexts = new HmacContext[senderContexts.length + 1];
+        final long[] counters = new long[senderCounters.length + 1];
+
+        System.arraycopy(senderIds, 0, ids, 0, insertion);
+        System.arraycopy(senderContexts, 0, contexts, 0, insertion);
+        System.arraycopy(senderCounters, 0, counters, 0, insertion);
+        ids[insertion] = senderId;
+        contexts[insertion] = context;
+        counters[insertion] = Long.MIN_VALUE;
+        System.arraycopy(senderIds, insertion, ids, insertion + 1, senderIds.length - insertion);
+        System.arraycopy(senderContexts, insertion, contexts, insertion + 1, senderContexts.length - insertion);
+        System.arraycopy(senderCounters, insertion, counters, insertion + 1, senderCounters.length - insertion);
+
+        senderIds = ids;
+        senderContexts = contexts;
+        senderCounters = counters;
+    }
+
+    /**
+     * Removes a sender, its packets will be rejected
+     * @param senderId the ID of the sender
+     * @return <code>true</code> if the sender was removed, <code>false</code> if it was unknown
+     */
+    public synchronized boolean removeSender(int senderId) {
+        final int index = Arrays.binarySearch(senderIds, senderId);
+        if(index < 0)
+            return false;
+
+        final int[] ids = new int[senderIds.length - 1];
+        final HmacContext[] contexts = new HmacContext[senderContexts.length - 1];
+        final long[] counters = new long[senderCounters.length - 1];
+
+        System.arraycopy(senderIds, 0, ids, 0, index);
+        System.arraycopy(senderContexts, 0, contexts, 0, index);
+        System.arraycopy(senderCounters, 0, counters, 0, index);
+        System.arraycopy(senderIds, index + 1, ids, index, senderIds.length - index - 1);
+        System.arraycopy(senderContexts, index + 1, contexts, index, senderContexts.length - index - 1);
+        System.arraycopy(senderCounters, index + 1, counters, index, senderCounters.length - index - 1);
+
+        senderIds = ids;
+        senderContexts = contexts;
+        senderCounters = counters;
+        return true;
+    }
+
+    /**
+     * Signs a packet: writes the header in the {@link #HEADER_LENGTH} first bytes, the payload follows it.
+     * @param packet the packet
+     * @param length the length of the packet (header included)
+     * @throws IOException thrown in case of failure when reserving a new block of counter values
+     */
+    public void sign(byte[] packet, int length) throws IOException {
+        if(length < HEADER_LENGTH)
+            throw new IllegalArgumentException("Packet shorter than its header");
+
+        writeInt(packet, 0, senderId);
+
+        synchronized (signingContext) {
+            if(counterFile == null) {
+                // Note: based on the clock, so the counter keeps increasing when the sender restarts
+                signingCounter = Math.max(System.currentTimeMillis() << 10, signingCounter + 1);
+            } else {
+                if(signingCounter + 1 > reservedCounter) {
+                    // The counter must be reserved before being used, so it is never reused after a restart
+                    writeCounter(counterFile, reservedCounter + COUNTER_BLOCK_SIZE);
+                    reservedCounter += COUNTER_BLOCK_SIZE;
+                }
+                signingCounter++;
+            }
+            writeLong(packet, 4, signingCounter);
+
+            signingContext.compute(packet, 0, length, signingBuffer);
+            System.arraycopy(signingBuffer, 0, packet, MAC_OFFSET, MAC_LENGTH);
+        }
+    }
+
+    /**
+     * Verifies the header of a packet
+     * @param packet the buffer containing the packet
+     * @param offset the offset of the packet in the buffer
+     * @param length the length of the packet (header included)
+     * @return <code>true</code> if the sender is known, the MAC is valid and the packet is not replayed
+     */
+    public synchronized boolean verify(byte[] packet, int offset, int length) {
+        if(length < HEADER_LENGTH)
+            return false;
+
+        final int index = Arrays.binarySearch(senderIds, readInt(packet, offset));
+        if(index < 0)
+            return false;
+
+        senderContexts[index].compute(packet, offset, length, verificationBuffer);
+
+        // Note: constant time comparison, not to leak the position of the first wrong byte
+        int difference = 0;
+        for(int i = 0; i < MAC_LENGTH; i++) {
+            difference |= verificationBuffer[i] ^ packet[offset + MAC_OFFSET + i];
+        }
+        if(difference != 0)
+            return false;
+
+        // The counter is only trusted once the MAC is verified
+        final long counter = readLong(packet, offset + 4);
+        if(counter <= senderCounters[index])
+            return false;
+
+        senderCounters[index] = counter;
+        return true;
+    }
+
+    /**
+     * Reads the ID of the sender in the header of a packet (to be trusted only if the packet was verified)
+     * @param packet the buffer containing the packet
+     * @param offset the offset of the packet in the buffer
+     * @return the ID of the sender
+     */
+    public static int readSenderId(byte[] packet, int offset) {
+        return readInt(packet, offset);
+    }
+
+    private static long readCounter(File file) throws IOException {
+        if(!file.exists())
+            return 0;
+
+        try (RandomAccessFile counterFile = new RandomAccessFile(file, "r")) {
+            return counterFile.length() < 8 ? 0 : counterFile.readLong();
+        }
+    }
+
+    private static void writeCounter(File file, long counter) throws IOException {
+        // Note: synchronous write, so the reservation is on the flash before the counter is used
+        try (RandomAccessFile counterFile = new RandomAccessFile(file, "rwd")) {
+            counterFile.writeLong(counter);
+        }
+    }
+
+    private static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+
+    private static void writeLong(byte[] buffer, int offset, long value) {
+        writeInt(buffer, offset, (int) (value >>> 32));
+        writeInt(buffer, offset + 4, (int) value);
+    }
+
+    private static long readLong(byte[] buffer, int offset) {
+        return ((long) readInt(buffer, offset) << 32) | (readInt(buffer, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24)
+                | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8)
+                | (buffer[offset + 3] & 0xFF);
+    }
+
+    /**
+     * HMAC-SHA256 context of a key (RFC 2104), reusing the same message digest and buffers for each computation
+     */
+    private static final class HmacContext {
+
+        private final MessageDigest digest;
+        private final byte[] innerPad = new byte[BLOCK_LENGTH];
+        private final byte[] outerPad = new byte[BLOCK_LENGTH];
+        private final byte[] innerHash = new byte[DIGEST_LENGTH];
+
+        HmacContext(byte[] key) {
+            try {
+                digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+
+            if(key.length > BLOCK_LENGTH) {
+                key = digest.digest(key);
+            }
+
+            for(int i = 0; i < BLOCK_LENGTH; i++) {
+                final byte k = i < key.length ? key[i] : 0;
+                innerPad[i] = (byte) (k ^ 0x36);
+                outerPad[i] = (byte) (k ^ 0x5c);
+            }
+        }
+
+        /**
+         * Computes the MAC of the sender ID, of the counter and of the payload of a packet
+         * @param packet the buffer containing the packet
+         * @param offset the offset of the packet in the buffer
+         * @param length the length of the packet (header included)
+         * @param output the buffer receiving the MAC ({@link #DIGEST_LENGTH} bytes)
+         */
+        void compute(byte[] packet, int offset, int length, byte[] output) {
+            try {
+                // Note: the digest is reset by each call to digest()
+                digest.update(innerPad);
+                digest.update(packet, offset, MAC_OFFSET);
+                digest.update(packet, offset + HEADER_LENGTH, length - HEADER_LENGTH);
+                digest.digest(innerHash, 0, DIGEST_LENGTH);
+
+                digest.update(outerPad);
+                digest.update(innerHash);
+                digest.digest(output, 0, DIGEST_LENGTH);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package fr.utbm.ev3.network;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operators on publishers (conflation, batching windows).
+ * @author Alexandre Lombard
+ */
+public final class Publishers {
+
+    /** The key used when only the latest item is kept */
+    private static final Object SINGLE_KEY = new Object();
+
+    /** The executor service closing the batching windows (shared, daemon thread) */
+    private static ScheduledExecutorService windowExecutorService;
+
+    private Publishers() {
+        // Not instantiable
+    }
+
+    /**
+     * Keeps only the latest item not yet requested by the subscriber.
+     * @param upstream the source publisher
+     * @param <T> the type of the items
+     * @return the conflated publisher
+     */
+    public static <T> Flow.Publisher<T> latest(Flow.Publisher<T> upstream) {
+        return conflate(upstream, new KeySelector<T, Object>() {
+            @Override
+            public Object keyOf(T item) {
+                return SINGLE_KEY;
+            }
+        });
+    }
+
+    /**
+     * Keeps only the latest item of each key not yet requested by the subscriber
+     * (i.e. the latest data of each vehicle).
+     * @param upstream the source publisher
+     * @param keySelector the function giving the key of an item
+     * @param <T> the type of the items
+     * @param <K> the type of the keys
+     * @return the conflated publisher
+     */
+    public static <T, K> Flow.Publisher<T> conflate(final Flow.Publisher<T> upstream,
+                                                    final KeySelector<? super T, K> keySelector) {
+        return new Flow.Publisher<T>() {
+            @Override
+            public void subscribe(Flow.Subscriber<? super T> subscriber) {
+                final BufferedSubscription<T> subscription = new BufferedSubscription<>(
+                        subscriber, new BufferedSubscription.ConflatingBuffer<T, K>(keySelector), null);
+
+                subscriber.onSubscribe(subscription);
+                upstream.subscribe(new UnboundedSubscriber<T>(subscription) {
+                    @Override
+                    public void onNext(T item) {
+                        subscription.next(item);
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Groups the items in batches, emitted at the end of each window or as soon as a batch is full.
+     * Empty batches are not emitted.
+     * @param upstream the source publisher
+     * @param periodMs the duration of a window in milliseconds
+     * @param maxSize the maximum number of items in a batch
+     * @param <T> the type of the items
+     * @return the publisher of batches
+     */
+    public static <T> Flow.Publisher<List<T>> window(final Flow.Publisher<T> upstream,
+                                                     final long periodMs, final int maxSize) {
+        if(periodMs <= 0 || maxSize <= 0)
+            throw new IllegalArgumentException("Period and maximum size must be strictly positive");
+
+        return new Flow.Publisher<List<T>>() {
+            @Override
+            public void subscribe(Flow.Subscriber<? super List<T>> subscriber) {
+                final BufferedSubscription<List<T>> subscription = new BufferedSubscription<>(
+                        subscriber,
+                        new BufferedSubscription.BoundedBuffer<List<T>>(TopicPublisher.DEFAULT_BUFFER_SIZE),
+                        null);
+
+                final Window<T> window = new Window<>(subscription, maxSize);
+
+                subscriber.onSubscribe(subscription);
+                if(subscription.isCancelled())
+                    return;
+
+                window.schedule(getWindowExecutorService().scheduleAtFixedRate(new Runnable() {
+                    @Override
+                    public void run() {
+                        window.flush();
+                    }
+                }, periodMs, periodMs, TimeUnit.MILLISECONDS));
+
+                upstream.subscribe(window);
+            }
+        };
+    }
+
+    private static synchronized ScheduledExecutorService getWindowExecutorService() {
+        if(windowExecutorService == null) {
+            windowExecutorService = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread thread = new Thread(r, "publishers-window");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return windowExecutorService;
+    }
+
+    /**
+     * Function giving the key of an item, used for conflation
+     * @param <T> the type of the items
+     * @param <K> the type of the keys
+     */
+    public interface KeySelector<T, K> {
+        /**
+         * Gets the key of an item
+         * @param item the item
+         * @return the key (items with equal keys are conflated)
+         */
+        K keyOf(T item);
+    }
+
+    /**
+     * Subscriber requesting all the items of its source, and forwarding the termination to a downstream
+     * buffered subscription
+     */
+    private abstract static class UnboundedSubscriber<T> implements Flow.Subscriber<T> {
+
+        private final BufferedSubscription<?> downstream;
+
+        UnboundedSubscriber(BufferedSubscription<?> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            downstream.attach(subscription);
+            if(!downstream.isCancelled()) {
+                subscription.request(Long.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            downstream.error(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            downstream.complete();
+        }
+    }
+
+    /**
+     * Batching window, collecting the items until the batch is flushed
+     */
+    private static final class Window<T> extends UnboundedSubscriber<T> {
+
+        private final BufferedSubscription<List<T>> downstream;
+        private final int maxSize;
+
+        private List<T> batch = new ArrayList<>();
+
+        /** The task flushing the window (set by the subscribing thread, read by the timer and receiving threads) */
+        private volatile ScheduledFuture<?> future;
+
+        Window(BufferedSubscription<List<T>> downstream, int maxSize) {
+            super(downstream);
+            this.downstream = downstream;
+            this.maxSize = maxSize;
+        }
+
+        void schedule(final ScheduledFuture<?> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void onSubscribe(final Flow.Subscription subscription) {
+            // Stops the window when the subscription is cancelled
+            super.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    future.cancel(false);
+                    subscription.cancel();
+                }
+            });
+        }
+
+        @Override
+        public void onNext(T item) {
+            synchronized (this) {
+                batch.add(item);
+                if(batch.size() < maxSize)
+                    return;
+                emit();
+            }
+            downstream.signal();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            future.cancel(false);
+            flush();
+            super.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            future.cancel(false);
+            flush();
+            super.onComplete();
+        }
+
+        /**
+         * Emits the current batch (if not empty)
+         */
+        void flush() {
+            synchronized (this) {
+                if(batch.isEmpty())
+                    return;
+                emit();
+            }
+            downstream.signal();
+        }
+
+        /**
+         * Adds the current batch to the buffer and starts a new one. Called while holding the lock of the window, so
+         * the batches reach the buffer in order (only the lock of the buffer is taken, the delivery is signaled
+         * once the lock of the window is released, so the subscriber is never called while holding it).
+         */
+        private void emit() {
+            final List<T> full = batch;
+            batch = new ArrayList<>();
+            downstream.enqueue(full);
+        }
+    }
+}
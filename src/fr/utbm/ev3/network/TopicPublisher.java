@@ -0,0 +1,139 @@
+package fr.utbm.ev3.network;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Publisher of the messages received on a topic by the broadcast manager.
+ * Each subscriber has its own bounded buffer (the oldest messages are dropped when it is full), and only receives
+ * the messages it requested. Combined with {@link Publishers}, it allows slow consumers to work on fresh data
+ * instead of a backlog of stale messages.
+ * @author Alexandre Lombard
+ */
+public class TopicPublisher<M extends Message> implements Flow.Publisher<M> {
+
+    /** The default number of messages kept for each subscriber */
+    public static final int DEFAULT_BUFFER_SIZE = 64;
+
+    private final BroadcastManager broadcastManager;
+    private final String topic;
+    private final Class<M> messageType;
+    private final int bufferSize;
+    private final Executor executor;
+
+    private final List<BufferedSubscription<M>> subscriptions = new CopyOnWriteArrayList<>();
+
+    private boolean registered = false;
+
+    private final MessageEventListener listener = new MessageEventListener() {
+        @Override
+        public void onMessageReceived(Message message) {
+            // Note: messages of other types on the same topic are ignored
+            if(messageType.isInstance(message)) {
+                final M typedMessage = messageType.cast(message);
+                for(BufferedSubscription<M> subscription : subscriptions) {
+                    subscription.next(typedMessage);
+                }
+            }
+        }
+    };
+
+    /**
+     * Builds a publisher of the messages of the given topic, delivered in the receiving thread
+     * @param topic the topic
+     * @param messageType the type of the published messages
+     */
+    public TopicPublisher(String topic, Class<M> messageType) {
+        this(BroadcastManager.getInstance(), topic, messageType, DEFAULT_BUFFER_SIZE, null);
+    }
+
+    /**
+     * Builds a publisher of the messages of the given topic
+     * @param broadcastManager the broadcast manager receiving the messages
+     * @param topic the topic
+     * @param messageType the type of the published messages
+     * @param bufferSize the maximum number of messages kept for each subscriber
+     * @param executor the executor used to deliver the messages, <code>null</code> to deliver them in the
+     *                 receiving thread (or in the thread requesting them)
+     */
+    public TopicPublisher(BroadcastManager broadcastManager, String topic, Class<M> messageType,
+                          int bufferSize, Executor executor) {
+        if(bufferSize <= 0)
+            throw new IllegalArgumentException("Buffer size must be strictly positive");
+
+        this.broadcastManager = broadcastManager;
+        this.topic = topic;
+        this.messageType = messageType;
+        this.bufferSize = bufferSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Gets the topic
+     * @return the topic
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super M> subscriber) {
+        final BufferedSubscription<M> subscription = new BufferedSubscription<>(
+                subscriber, new BufferedSubscription.BoundedBuffer<M>(bufferSize), executor);
+
+        subscription.attach(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                // Note: the messages are pushed by the broadcast manager
+            }
+
+            @Override
+            public void cancel() {
+                remove(subscription);
+            }
+        });
+
+        subscriber.onSubscribe(subscription);
+
+        add(subscription);
+        if(subscription.isCancelled()) {
+            // Cancelled before being added (the removal did nothing), or meanwhile
+            remove(subscription);
+        }
+    }
+
+    /**
+     * Completes all the subscriptions and stops listening to the topic
+     */
+    public void close() {
+        for(BufferedSubscription<M> subscription : subscriptions) {
+            subscription.complete();
+        }
+        subscriptions.clear();
+        updateRegistration();
+    }
+
+    private void add(BufferedSubscription<M> subscription) {
+        subscriptions.add(subscription);
+        updateRegistration();
+    }
+
+    private void remove(BufferedSubscription<M> subscription) {
+        subscriptions.remove(subscription);
+        updateRegistration();
+    }
+
+    /**
+     * Listens to the topic only while there are subscribers
+     */
+    private synchronized void updateRegistration() {
+        if(!registered && !subscriptions.isEmpty()) {
+            broadcastManager.subscribe(topic, listener);
+            registered = true;
+        } else if(registered && subscriptions.isEmpty()) {
+            broadcastManager.unsubscribe(topic, listener);
+            registered = false;
+        }
+    }
+}
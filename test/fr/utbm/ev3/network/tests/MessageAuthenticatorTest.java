@@ -0,0 +1,144 @@
+package fr.utbm.ev3.network.tests;
+
+import fr.utbm.ev3.intersection.IntersectionManager;
+import fr.utbm.ev3.intersection.Request;
+import fr.utbm.ev3.intersection.RequestMessage;
+import fr.utbm.ev3.intersection.VehicleData;
+import fr.utbm.ev3.network.BroadcastManager;
+import fr.utbm.ev3.network.Message;
+import fr.utbm.ev3.network.MessageAuthenticator;
+import fr.utbm.ev3.network.MessageEventListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Test class for the authentication of the packets. Note: not a unit test (it's based on the availability of a network
+ * interface supporting broadcast).
+ * @author Alexandre Lombard
+ */
+public class MessageAuthenticatorTest {
+
+    private static final String UNAUTHENTICATED_TOPIC = "unauthenticated";
+
+    /**
+     * Main function
+     * @param args command line arguments (ignored)
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        final byte[] key = "robot-1-secret-key".getBytes();
+        final MessageAuthenticator authenticator = new MessageAuthenticator(1, key);
+        final MessageAuthenticator forger = new MessageAuthenticator(1, "wrong-key".getBytes());
+
+        // Local checks of the header
+        final byte[] packet = signedPacket(authenticator, exitMessage(UUID.randomUUID()));
+        final MessageAuthenticator receiver = new MessageAuthenticator(2, "robot-2-secret-key".getBytes());
+        receiver.addSender(1, key);
+
+        final byte[] tampered = packet.clone();
+        tampered[tampered.length - 1] ^= 1;
+        check("tampered packet rejected", !receiver.verify(tampered, 0, tampered.length));
+        check("signed packet accepted", receiver.verify(packet, 0, packet.length));
+        check("replayed packet rejected", !receiver.verify(packet, 0, packet.length));
+
+        // Reception through the broadcast manager
+        final BroadcastManager broadcastManager = BroadcastManager.getInstance();
+        final AtomicInteger unauthenticated = new AtomicInteger();
+        final AtomicInteger enters = new AtomicInteger();
+        final AtomicInteger exits = new AtomicInteger();
+
+        broadcastManager.subscribe(UNAUTHENTICATED_TOPIC, new MessageEventListener() {
+            @Override
+            public void onMessageReceived(Message message) {
+                unauthenticated.incrementAndGet();
+            }
+        });
+
+        broadcastManager.subscribe(IntersectionManager.REQUESTS_TOPIC, new MessageEventListener() {
+            @Override
+            public void onMessageReceived(Message message) {
+                final Request request = ((RequestMessage) message).unsafeGetObject();
+                System.out.println("Received from " + message.getSenderId() + ": " + request);
+
+                if(request.getRequestType() == Request.RequestType.EXIT) {
+                    exits.incrementAndGet();
+                } else {
+                    enters.incrementAndGet();
+                }
+            }
+        });
+
+        // Off by default: plain messages are received
+        check("authentication disabled by default", broadcastManager.getAuthenticator() == null);
+        broadcastManager.publish(new Message(UNAUTHENTICATED_TOPIC, "hello".getBytes()));
+        Thread.sleep(500);
+
+        // Enabled: only signed, fresh packets are received
+        broadcastManager.setAuthenticator(authenticator);
+        broadcastManager.publish(new Message(UNAUTHENTICATED_TOPIC, "hello".getBytes()));
+        sendRaw(unsignedPacket(new Message(UNAUTHENTICATED_TOPIC, "hello".getBytes())), broadcastManager.getPort());
+
+        final UUID vehicleId = UUID.randomUUID();
+        broadcastManager.publish(new RequestMessage(
+                new Request(Request.RequestType.ENTER, new VehicleData(vehicleId, 1.0, 2))));
+
+        // Forged EXIT (signed with a wrong key)
+        sendRaw(signedPacket(forger, exitMessage(vehicleId)), broadcastManager.getPort());
+
+        // Replayed EXIT (the same signed packet sent twice)
+        final byte[] exitPacket = signedPacket(authenticator, exitMessage(vehicleId));
+        sendRaw(exitPacket, broadcastManager.getPort());
+        Thread.sleep(200);
+        sendRaw(exitPacket, broadcastManager.getPort());
+        Thread.sleep(500);
+
+        // Note: the plain message published while authentication is enabled is signed, so it is received
+        check("unsigned packet dropped", unauthenticated.get() == 2);
+        check("signed ENTER received", enters.get() == 1);
+        check("forged and replayed EXIT dropped", exits.get() == 1);
+
+        System.exit(0);
+    }
+
+    private static void check(String description, boolean success) {
+        System.out.println((success ? "OK: " : "FAILED: ") + description);
+    }
+
+    private static RequestMessage exitMessage(UUID vehicleId) {
+        return new RequestMessage(new Request(Request.RequestType.EXIT, new VehicleData(vehicleId, 0.0, 2)));
+    }
+
+    private static byte[] serialize(Message message, int headerLength) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(new byte[headerLength]);
+
+        final ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(message);
+        out.flush();
+
+        return bos.toByteArray();
+    }
+
+    private static byte[] unsignedPacket(Message message) throws IOException {
+        return serialize(message, 0);
+    }
+
+    private static byte[] signedPacket(MessageAuthenticator authenticator, Message message) throws IOException {
+        final byte[] packet = serialize(message, MessageAuthenticator.HEADER_LENGTH);
+        authenticator.sign(packet, packet.length);
+        return packet;
+    }
+
+    private static void sendRaw(byte[] packet, int port) throws IOException {
+        final DatagramSocket socket = new DatagramSocket();
+        socket.setBroadcast(true);
+        socket.send(new DatagramPacket(packet, packet.length, InetAddress.getByName("255.255.255.255"), port));
+        socket.close();
+    }
+}